@@ -16,6 +16,7 @@
 package edu.unc.lib.fedora.repairsiblings;
 
 import java.net.URI;
+import java.util.regex.Pattern;
 
 import org.fcrepo.client.FcrepoClient;
 
@@ -27,6 +28,7 @@ import picocli.CommandLine.Option;
 public class CommonOptions {
 
     private FcrepoClient fcrepoClient;
+    private Pattern containsProblemPattern;
 
     @Option(names = {"-u", "--username"},
             description = "Fedora user for basic authentication")
@@ -51,6 +53,25 @@ public class CommonOptions {
             defaultValue = "false")
     protected boolean dryRun;
 
+    /**
+     * @return pattern which splits a path into the problem node containing the fix pattern,
+     *      the portion of the path before the fix, and the portion after the problem node
+     */
+    protected Pattern getProblemPattern() {
+        return Pattern.compile("(?<prob>(?<pre>.*)" + fixPattern + ")(?<post>.*)");
+    }
+
+    /**
+     * @param path
+     * @return true if the path contains the fix pattern
+     */
+    protected boolean isProblemPath(String path) {
+        if (containsProblemPattern == null) {
+            containsProblemPattern = Pattern.compile(".*" + fixPattern + ".*");
+        }
+        return containsProblemPattern.matcher(path).matches();
+    }
+
     protected FcrepoClient getClient() {
         if (fcrepoClient == null) {
             if (username == null) {
@@ -17,12 +17,24 @@ package edu.unc.lib.fedora.repairsiblings;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.NodeIterator;
+import org.apache.commons.lang3.StringUtils;
 import org.fcrepo.client.FcrepoOperationFailedException;
 import org.fcrepo.client.FcrepoResponse;
 import org.slf4j.Logger;
@@ -46,9 +58,30 @@ public class LocateIssuesCommand implements Callable<Integer> {
             description = "Recurse through the containment hierarchy")
     protected boolean recursive;
 
+    @Option(names = {"-m", "--manifest"},
+            description = "Write a manifest of the located problems to this file, which allows repair"
+                    + " to skip validating them")
+    protected Path manifestPath;
+
+    private BufferedWriter manifestWriter;
+    private Pattern problemPattern;
+    private Map<String, String> problemEtags = new HashMap<>();
+
     @Override
     public Integer call() throws Exception {
-        crawlContains(URI.create(common.fedoraBase));
+        problemPattern = common.getProblemPattern();
+        if (manifestPath == null) {
+            crawlContains(URI.create(common.fedoraBase));
+            return 0;
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestPath, UTF_8)) {
+            manifestWriter = writer;
+            crawlContains(URI.create(common.fedoraBase));
+        } catch (IOException | UncheckedIOException e) {
+            output.error("Failed to write manifest {}", manifestPath, e);
+            return 1;
+        }
 
         return 0;
     }
@@ -63,13 +96,18 @@ public class LocateIssuesCommand implements Callable<Integer> {
             log.error("Failed to retrieve {}", rescUri, e);
         }
 
-        try (FcrepoResponse resp = common.getClient().get(rescUri).perform()) {
-            Model model = RepairCLI.createModel(resp.getBody());
-            NodeIterator objIt = model.listObjectsOfProperty(RepairCLI.ldp_contains);
-            while (objIt.hasNext()) {
-                String containedString = objIt.next().toString();
-                if (containedString.matches(".*" + common.fixPattern + ".*")) {
+        try {
+            List<String> containedList = RepairCLI.listContained(common.getClient(), rescUri);
+            Set<String> knownPaths = null;
+            for (String containedString : containedList) {
+                if (common.isProblemPath(containedString)) {
                     output.info(containedString);
+                    if (manifestWriter != null) {
+                        if (knownPaths == null) {
+                            knownPaths = getKnownPaths(rescUri, containedList);
+                        }
+                        writeManifestEntry(containedString, knownPaths);
+                    }
                 }
                 if (recursive) {
                     crawlContains(URI.create(containedString));
@@ -79,4 +117,59 @@ public class LocateIssuesCommand implements Callable<Integer> {
             log.error("Failed to retrieve {}", rescUri, e);
         }
     }
+
+    /**
+     * Determine all paths known to exist based off of the resources contained by a container,
+     * including the pairtree nodes between the container and the contained resources.
+     */
+    private Set<String> getKnownPaths(URI rescUri, List<String> containedList) {
+        String containerPath = rescUri.toString();
+        Set<String> knownPaths = new HashSet<>();
+        knownPaths.add(containerPath);
+        for (String contained : containedList) {
+            String path = contained;
+            while (path.startsWith(containerPath + "/") && knownPaths.add(path)) {
+                path = StringUtils.substringBeforeLast(path, "/");
+            }
+        }
+        return knownPaths;
+    }
+
+    private void writeManifestEntry(String containedString, Set<String> knownPaths) {
+        Matcher matcher = problemPattern.matcher(containedString);
+        if (!matcher.matches()) {
+            return;
+        }
+        String prob = matcher.group("prob");
+        if (prob.equals(containedString)) {
+            return;
+        }
+        String etag = problemEtags.computeIfAbsent(prob, this::retrieveEtag);
+        ManifestEntry entry;
+        if (etag == null) {
+            // Record without verification, so that repair will check its state
+            output.warn("Unable to verify {}, it will be checked during repair", containedString);
+            entry = new ManifestEntry(containedString);
+        } else {
+            String fixedPath = matcher.group("pre") + matcher.group("post");
+            String fixedParent = StringUtils.substringBeforeLast(fixedPath, "/");
+            entry = new ManifestEntry(containedString, etag,
+                    knownPaths.contains(fixedPath), knownPaths.contains(fixedParent));
+        }
+        try {
+            manifestWriter.write(entry.toLine());
+            manifestWriter.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String retrieveEtag(String path) {
+        try (FcrepoResponse resp = common.getClient().head(URI.create(path)).perform()) {
+            return resp.getHeaderValue("ETag");
+        } catch (IOException | FcrepoOperationFailedException e) {
+            log.error("Failed to retrieve ETag for {}", path, e);
+            return null;
+        }
+    }
 }
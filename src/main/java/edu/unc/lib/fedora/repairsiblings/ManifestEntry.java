@@ -0,0 +1,98 @@
+/**
+ * Copyright 2008 The University of North Carolina at Chapel Hill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.unc.lib.fedora.repairsiblings;
+
+/**
+ * Entry from a locate manifest, recording the state of a resource contained by a problem node
+ * at the time it was located. Serialized as a tab separated line containing the path, the ETag
+ * of the problem node, whether the fixed path existed, and whether the parent of the fixed path existed.
+ * Entries which could not be verified are serialized as the path alone.
+ *
+ * @author bbpennel
+ */
+public class ManifestEntry {
+    private static final String SEPARATOR = "\t";
+
+    private String path;
+    private String problemEtag;
+    private boolean fixedExists;
+    private boolean fixedParentExists;
+
+    /**
+     * Construct an entry for a path which has not been verified
+     * @param path
+     */
+    public ManifestEntry(String path) {
+        this.path = path;
+    }
+
+    public ManifestEntry(String path, String problemEtag, boolean fixedExists, boolean fixedParentExists) {
+        this.path = path;
+        this.problemEtag = problemEtag;
+        this.fixedExists = fixedExists;
+        this.fixedParentExists = fixedParentExists;
+    }
+
+    /**
+     * @param line tab separated manifest line
+     * @return entry parsed from the line
+     */
+    public static ManifestEntry fromLine(String line) {
+        String[] parts = line.split(SEPARATOR);
+        if (parts.length == 1) {
+            return new ManifestEntry(parts[0]);
+        }
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid manifest entry: " + line);
+        }
+        return new ManifestEntry(parts[0], parts[1],
+                Boolean.parseBoolean(parts[2]), Boolean.parseBoolean(parts[3]));
+    }
+
+    public String toLine() {
+        if (!isVerified()) {
+            return path;
+        }
+        return String.join(SEPARATOR, path, problemEtag,
+                Boolean.toString(fixedExists), Boolean.toString(fixedParentExists));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return ETag of the problem node containing this path, or null if the entry was not verified
+     */
+    public String getProblemEtag() {
+        return problemEtag;
+    }
+
+    /**
+     * @return true if this entry was verified by locate, and can be trusted without rechecking
+     */
+    public boolean isVerified() {
+        return problemEtag != null;
+    }
+
+    public boolean isFixedExists() {
+        return fixedExists;
+    }
+
+    public boolean isFixedParentExists() {
+        return fixedParentExists;
+    }
+}
@@ -22,12 +22,16 @@ import static org.slf4j.LoggerFactory.getLogger;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.Resource;
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoOperationFailedException;
+import org.fcrepo.client.FcrepoResponse;
 import org.slf4j.Logger;
 
 import picocli.CommandLine;
@@ -40,7 +44,8 @@ import picocli.CommandLine.HelpCommand;
 @Command(subcommands = {
         HelpCommand.class,
         RepairIssuesCommand.class,
-        LocateIssuesCommand.class
+        LocateIssuesCommand.class,
+        WatchEventsCommand.class
     })
 public class RepairCLI implements Callable<Integer> {
     private static final Logger output = getLogger("output");
@@ -71,4 +76,20 @@ public class RepairCLI implements Callable<Integer> {
             throw new RuntimeException("Failed to close model stream", e);
         }
     }
+
+    /**
+     * @param client
+     * @param rescUri container to list
+     * @return the resources contained by the container, including those nested within pairtree nodes
+     * @throws IOException
+     * @throws FcrepoOperationFailedException
+     */
+    public static List<String> listContained(FcrepoClient client, URI rescUri)
+            throws IOException, FcrepoOperationFailedException {
+        try (FcrepoResponse resp = client.get(rescUri).perform()) {
+            Model model = createModel(resp.getBody());
+            return model.listObjectsOfProperty(ldp_contains)
+                    .mapWith(Object::toString).toList();
+        }
+    }
 }
@@ -31,6 +31,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
@@ -39,6 +40,7 @@ import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.RDFNode;
 import org.fcrepo.client.FcrepoOperationFailedException;
 import org.fcrepo.client.FcrepoResponse;
+import org.fcrepo.client.MoveBuilder;
 import org.slf4j.Logger;
 
 import picocli.CommandLine.Command;
@@ -55,49 +57,94 @@ public class RepairIssuesCommand implements Callable<Integer> {
     @Mixin
     private CommonOptions common;
 
-    @Parameters(index = "0", description = "File listing paths to repair")
+    @Parameters(index = "0", description = "File listing paths to repair, either as output by locate or a manifest"
+            + " produced by locate. Manifest entries are trusted instead of validating each path, and changes since"
+            + " the manifest was produced are detected via ETags")
     private Path pathList;
 
-    @SuppressWarnings("deprecation")
+    private Set<String> repairedPaths = new HashSet<>();
+
+    public RepairIssuesCommand() {
+    }
+
+    /**
+     * Construct a repair command for use outside of the command line, such as from the watch command
+     * @param common options to use for connecting to and repairing fedora
+     */
+    public RepairIssuesCommand(CommonOptions common) {
+        this.common = common;
+    }
+
     @Override
     public Integer call() throws Exception {
-        Pattern pattern = Pattern.compile("(?<prob>(?<pre>.*)" + common.fixPattern + ")(?<post>.*)");
-
-        // Compute the mapping of pairtree nodes with sibling indexes to contained children
-        Map<String, Set<String>> problemToContained = new HashMap<>();
+        List<ManifestEntry> entries;
         try (Stream<String> stream = Files.lines(pathList)) {
-            stream.forEach(line -> {
-                Matcher matcher = pattern.matcher(line);
-                if (!matcher.matches()) {
-                    output.error("Unexpected path in provided list {}", line);
-                    return;
-                }
-                String prob = matcher.group("prob");
-                if (prob.equals(line)) {
-                    output.debug("Ignoring {}", prob);
-                    return;
-                }
-                if (!exists(URI.create(prob))) {
-                    output.warn("Ignoring listed resource which does not exist: {}", prob);
-                    return;
-                }
-
-                Set<String> contained;
-                if (problemToContained.containsKey(prob)) {
-                    contained = problemToContained.get(prob);
-                } else {
-                    contained = new HashSet<>();
-                    problemToContained.put(prob, contained);
-                }
-                contained.add(line);
-            });
-        } catch (IOException e) {
+            // Paths listed without verification details are read as unverified manifest entries
+            entries = stream.map(ManifestEntry::fromLine)
+                    .collect(Collectors.toList());
+        } catch (IOException | IllegalArgumentException e) {
             output.error("Failed to read input file", e);
             return 1;
         }
 
+        repairEntries(entries.stream());
+        return 0;
+    }
+
+    /**
+     * Repair the same name sibling issues for the given list of paths
+     * @param paths stream of resource paths containing the fix pattern, in the format output by locate
+     */
+    public void repair(Stream<String> paths) {
+        repairEntries(paths.map(ManifestEntry::new));
+    }
+
+    /**
+     * Repair the same name sibling issues for the given manifest entries. Verified entries are trusted
+     * rather than checking the state of the repository, while unverified entries are checked.
+     * @param entries stream of manifest entries
+     */
+    @SuppressWarnings("deprecation")
+    public void repairEntries(Stream<ManifestEntry> entries) {
+        Pattern pattern = common.getProblemPattern();
+
+        // Compute the mapping of pairtree nodes with sibling indexes to contained children
+        Map<String, Set<String>> problemToContained = new HashMap<>();
+        Map<String, ManifestEntry> pathToEntry = new HashMap<>();
+        Map<String, String> problemEtags = new HashMap<>();
+        entries.forEach(entry -> {
+            String line = entry.getPath();
+            Matcher matcher = pattern.matcher(line);
+            if (!matcher.matches()) {
+                output.error("Unexpected path in provided list {}", line);
+                return;
+            }
+            String prob = matcher.group("prob");
+            if (prob.equals(line)) {
+                output.debug("Ignoring {}", prob);
+                return;
+            }
+            if (entry.isVerified()) {
+                problemEtags.put(prob, entry.getProblemEtag());
+            } else if (!exists(URI.create(prob))) {
+                output.warn("Ignoring listed resource which does not exist: {}", prob);
+                return;
+            }
+
+            Set<String> contained;
+            if (problemToContained.containsKey(prob)) {
+                contained = problemToContained.get(prob);
+            } else {
+                contained = new HashSet<>();
+                problemToContained.put(prob, contained);
+            }
+            contained.add(line);
+            pathToEntry.put(line, entry);
+        });
+
         // Rename the pairtrees with the [] in reverse order to deal with indexes adjusting as sibling count changes
         List<URI> destUris = new ArrayList<>();
+        Set<String> changedProblems = new HashSet<>();
         problemToContained.keySet().stream()
                 .sorted(Comparator.reverseOrder())
                 .forEach(prob -> {
@@ -114,15 +161,22 @@ public class RepairIssuesCommand implements Callable<Integer> {
             URI sourceUri = URI.create(prob);
             URI destUri = URI.create(newBase);
 
-            removeProblemCharacters(sourceUri, destUri, pattern, true);
+            if (!removeProblemCharacters(sourceUri, destUri, problemEtags.get(prob), true)) {
+                changedProblems.add(prob);
+                return;
+            }
 
             destUris.add(destUri);
         });
 
         // Move children of the renamed pair trees to the pairtree path without sibling indexes
         problemToContained.forEach((prob, containedList) -> {
+            if (changedProblems.contains(prob)) {
+                return;
+            }
             // Check if the destination exists
             for (String contained : containedList) {
+                ManifestEntry entry = pathToEntry.get(contained);
                 Matcher cMatcher = pattern.matcher(contained);
                 cMatcher.matches();
 
@@ -131,7 +185,10 @@ public class RepairIssuesCommand implements Callable<Integer> {
                 String postC = cMatcher.group("post");
 
                 URI fixedUri = URI.create(preC + postC);
-                if (exists(fixedUri)) {
+                boolean fixedExists = entry.isVerified()
+                        ? entry.isFixedExists() || repairedPaths.contains(fixedUri.toString())
+                        : exists(fixedUri);
+                if (fixedExists) {
                     output.error("Skipping move of {}, resource exists at destination {}",
                             contained, fixedUri);
                     return;
@@ -142,10 +199,12 @@ public class RepairIssuesCommand implements Callable<Integer> {
                 fixedParent = StringUtils.substringBeforeLast(fixedParent, "/");
                 URI fixedParentUri = URI.create(fixedParent);
 
-                if (!exists(fixedParentUri)) {
+                boolean parentKnown = entry.isFixedParentExists() || repairedPaths.contains(fixedParent);
+                if (!parentKnown && !exists(fixedParentUri)) {
                     output.debug("Creating parent {}", fixedParentUri);
                     if (!common.dryRun) {
                         createParent(fixedParentUri);
+                        repairedPaths.add(fixedParent);
                     }
                 }
 
@@ -156,6 +215,7 @@ public class RepairIssuesCommand implements Callable<Integer> {
                     try (FcrepoResponse resp = common.getClient()
                             .move(movedUri, fixedUri)
                             .perform()) {
+                        repairedPaths.add(fixedUri.toString());
                     } catch (IOException e) {
                         throw new RuntimeException("Failed to move " + movedUri, e);
                     } catch (FcrepoOperationFailedException e) {
@@ -165,6 +225,12 @@ public class RepairIssuesCommand implements Callable<Integer> {
                                 return;
                             }
                         }
+                        if (e.getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED) {
+                            // Destination was created after it was checked, such as since the manifest was created
+                            output.error("Skipping move of {}, resource exists at destination {}",
+                                    contained, fixedUri);
+                            return;
+                        }
                         throw new RuntimeException("Failed to move " + movedUri, e);
                     }
                 }
@@ -172,41 +238,73 @@ public class RepairIssuesCommand implements Callable<Integer> {
         });
 
         destUris.forEach(destUri -> cleanupEmpty(destUri));
-
-        return 0;
     }
 
+    /**
+     * Rename a problem node to remove its sibling index
+     * @param sourceUri problem node
+     * @param destUri destination for the problem node
+     * @param etag ETag of the problem node from the manifest, or null if the source was not verified
+     * @param retry
+     * @return false if the problem node changed or was removed since the manifest was created
+     */
     @SuppressWarnings("deprecation")
-    private void removeProblemCharacters(URI sourceUri, URI destUri, Pattern pattern, boolean retry) {
+    private boolean removeProblemCharacters(URI sourceUri, URI destUri, String etag, boolean retry) {
         output.info("Renaming parent {} to {}", sourceUri, destUri);
 
         if (common.dryRun) {
-            return;
+            return true;
         }
 
-        try (FcrepoResponse resp = common.getClient()
-                .move(sourceUri, destUri)
-                .perform()) {
+        MoveBuilder moveBuilder = common.getClient().move(sourceUri, destUri);
+        if (etag != null) {
+            // Fedora compares If-Match against the opaque value of its weak ETags
+            moveBuilder.addHeader("If-Match", StringUtils.removeStart(etag, "W/"));
+        }
+        try (FcrepoResponse resp = moveBuilder.perform()) {
 
         } catch (IOException e) {
             throw new RuntimeException("Failed to move " + sourceUri, e);
         } catch (FcrepoOperationFailedException e) {
             if (e.getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED) {
+                if (etag != null && !etag.equals(getEtag(sourceUri))) {
+                    output.error("Skipping {}, it has changed since the manifest was created", sourceUri);
+                    return false;
+                }
                 boolean cleanedUpSource = cleanupEmpty(sourceUri);
                 cleanupEmpty(destUri);
                 if (retry && !cleanedUpSource) {
-                    removeProblemCharacters(sourceUri, destUri, pattern, false);
+                    return removeProblemCharacters(sourceUri, destUri, etag, false);
                 }
-                return;
+                return true;
             }
             if (e.getStatusCode() == HttpStatus.SC_CONFLICT) {
                 if (exists(destUri)) {
                     // expected
-                    return;
+                    return true;
                 }
             }
+            if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND && etag != null) {
+                output.warn("Ignoring listed resource which does not exist: {}", sourceUri);
+                return false;
+            }
             throw new RuntimeException("Failed to move " + sourceUri, e);
         }
+        return true;
+    }
+
+    private String getEtag(URI uri) {
+        try (FcrepoResponse resp = common.getClient().head(uri).perform()) {
+            return resp.getHeaderValue("ETag");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to check on " + uri, e);
+        } catch (FcrepoOperationFailedException e) {
+            if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                return null;
+            } else {
+                throw new RuntimeException("Failed to check on " + uri, e);
+            }
+        }
     }
 
     private boolean exists(URI uri) {
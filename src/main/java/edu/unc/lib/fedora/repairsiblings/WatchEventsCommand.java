@@ -0,0 +1,322 @@
+/**
+ * Copyright 2008 The University of North Carolina at Chapel Hill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.unc.lib.fedora.repairsiblings;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.fcrepo.client.FcrepoOperationFailedException;
+import org.fcrepo.client.FcrepoResponse;
+import org.slf4j.Logger;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+
+/**
+ * Listens to the fedora message stream for newly created resources, reporting or repairing
+ * any which were created as same name siblings. Sibling indexes shift as problems are repaired,
+ * so the current path of each detected problem is resolved when its batch is processed.
+ *
+ * Events published while the watcher is not running are only received if it uses a durable
+ * subscription, otherwise locate must be used to find problems created during that time.
+ *
+ * @author bbpennel
+ */
+@Command(name = "watch")
+public class WatchEventsCommand implements Callable<Integer> {
+    private static final Logger log = getLogger(WatchEventsCommand.class);
+    private static final Logger output = getLogger("output");
+
+    public static final String IDENTIFIER_HEADER = "org.fcrepo.jms.identifier";
+    public static final String EVENT_TYPE_HEADER = "org.fcrepo.jms.eventType";
+    public static final String BASE_URL_HEADER = "org.fcrepo.jms.baseURL";
+    public static final String CREATE_EVENT_TYPE = "Create";
+
+    private static final long POLL_INTERVAL = 500;
+    private static final long SHUTDOWN_TIMEOUT = 60;
+    // Set by GraalVM when running as a native executable
+    private static final String NATIVE_IMAGE_PROPERTY = "org.graalvm.nativeimage.imagecode";
+
+    @Mixin
+    private CommonOptions common;
+
+    @Option(names = {"--broker-url"},
+            defaultValue = "tcp://localhost:61616",
+            description = "URL of the broker fedora publishes events to. Default is tcp://localhost:61616")
+    protected String brokerUrl;
+
+    @Option(names = {"-t", "--topic"},
+            defaultValue = "fedora",
+            description = "Name of the topic fedora publishes events to. Default is fedora")
+    protected String topicName;
+
+    @Option(names = {"-r", "--repair"},
+            description = "Repair problems as they are detected, otherwise they are only reported")
+    protected boolean repair;
+
+    @Option(names = {"-s", "--batch-size"},
+            defaultValue = "100",
+            description = "Maximum number of problem paths to collect before reporting or repairing. Default is 100")
+    protected int batchSize;
+
+    @Option(names = {"-w", "--batch-window"},
+            defaultValue = "5000",
+            description = "Milliseconds to wait for further events after a problem is detected before reporting"
+                    + " or repairing the batch. Default is 5000")
+    protected long batchWindow;
+
+    @Option(names = {"-d", "--duration"},
+            defaultValue = "0",
+            description = "Number of seconds to watch for events before exiting. By default, runs until stopped")
+    protected long duration;
+
+    @Option(names = {"--client-id"},
+            description = "Client ID to connect to the broker with, required for a durable subscription")
+    protected String clientId;
+
+    @Option(names = {"--subscription-name"},
+            description = "Name of a durable subscription to the topic, so that events published while the watcher"
+                    + " is not running are received when it restarts. Requires --client-id")
+    protected String subscriptionName;
+
+    private volatile boolean running;
+    private Pattern problemPattern;
+    private URI watchBase;
+    private String watchBasePath;
+    private Set<String> mismatchedBaseUrls = new HashSet<>();
+    private Set<String> batch = new LinkedHashSet<>();
+    private long batchStarted;
+
+    @Override
+    public Integer call() throws Exception {
+        // ActiveMQ locates its transports reflectively, which is not configured for the native executable
+        if (System.getProperty(NATIVE_IMAGE_PROPERTY) != null) {
+            output.error("The watch command is not supported by the native executable, run it from the jar");
+            return 1;
+        }
+
+        if (subscriptionName != null && clientId == null) {
+            output.error("A client ID must be provided for a durable subscription");
+            return 1;
+        }
+
+        problemPattern = common.getProblemPattern();
+        watchBase = URI.create(StringUtils.removeEnd(common.fedoraBase, "/"));
+        watchBasePath = watchBase.getRawPath();
+        long endTime = duration > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(duration) : 0;
+
+        // Process the pending batch before exiting when the watcher is stopped
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            stop();
+            try {
+                stopped.await(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        running = true;
+
+        Connection connection = null;
+        try {
+            ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(brokerUrl);
+            connection = connectionFactory.createConnection();
+            if (clientId != null) {
+                connection.setClientID(clientId);
+            }
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Topic topic = session.createTopic(topicName);
+            MessageConsumer consumer = subscriptionName == null
+                    ? session.createConsumer(topic)
+                    : session.createDurableSubscriber(topic, subscriptionName);
+            connection.start();
+            log.info("Watching for events on {} from {}", topicName, brokerUrl);
+
+            while (running && (endTime == 0 || System.currentTimeMillis() < endTime)) {
+                Message message = consumer.receive(POLL_INTERVAL);
+                if (message != null) {
+                    handleMessage(message);
+                }
+                if (batch.size() >= batchSize
+                        || (!batch.isEmpty() && System.currentTimeMillis() - batchStarted >= batchWindow)) {
+                    processBatch();
+                }
+            }
+        } finally {
+            closeConnection(connection);
+            try {
+                if (!batch.isEmpty()) {
+                    processBatch();
+                }
+            } finally {
+                stopped.countDown();
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    // Already shutting down
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    private void closeConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (JMSException e) {
+            log.error("Failed to close connection to {}", brokerUrl, e);
+        }
+    }
+
+    /**
+     * Stop watching for events, processing any pending batch before exiting
+     */
+    public void stop() {
+        running = false;
+    }
+
+    private void handleMessage(Message message) {
+        try {
+            String eventType = message.getStringProperty(EVENT_TYPE_HEADER);
+            if (eventType == null || !eventType.contains(CREATE_EVENT_TYPE)) {
+                return;
+            }
+            String identifier = message.getStringProperty(IDENTIFIER_HEADER);
+            String baseUrl = StringUtils.removeEnd(message.getStringProperty(BASE_URL_HEADER), "/");
+            if (identifier == null || baseUrl == null) {
+                log.warn("Ignoring create event missing identifier or base url: {}", message.getJMSMessageID());
+                return;
+            }
+            // Event identifiers are not url encoded. The base url is taken from the request which created
+            // the resource, so compare paths and resolve against the base url being watched
+            URI eventBase = URI.create(baseUrl);
+            String path = eventBase.getRawPath() + new URI(null, null, identifier, null).toASCIIString();
+            if (!path.equals(watchBasePath) && !path.startsWith(watchBasePath + "/")) {
+                log.debug("Ignoring create event outside of watched path {}", path);
+                return;
+            }
+            if (!StringUtils.equals(eventBase.getScheme(), watchBase.getScheme())
+                    || !StringUtils.equals(eventBase.getRawAuthority(), watchBase.getRawAuthority())) {
+                if (mismatchedBaseUrls.add(baseUrl)) {
+                    output.warn("Events published with base url {}, resolving them against {}",
+                            baseUrl, common.fedoraBase);
+                }
+            }
+            String rescUri = watchBase.getScheme() + "://" + watchBase.getRawAuthority() + path;
+            log.debug("Received create event for {}", rescUri);
+
+            if (!common.isProblemPath(rescUri)) {
+                return;
+            }
+            if (batch.isEmpty()) {
+                batchStarted = System.currentTimeMillis();
+            }
+            batch.add(rescUri);
+        } catch (JMSException e) {
+            log.error("Failed to read event message", e);
+        } catch (URISyntaxException e) {
+            log.error("Ignoring create event with invalid identifier", e);
+        }
+    }
+
+    private void processBatch() {
+        log.info("Processing batch of {} problem paths", batch.size());
+        Set<String> problems = new LinkedHashSet<>();
+        for (String path : batch) {
+            String currentPath = resolveCurrentPath(path);
+            if (currentPath != null) {
+                problems.add(currentPath);
+            }
+        }
+        batch.clear();
+
+        problems.forEach(output::info);
+        if (repair && !problems.isEmpty()) {
+            try {
+                new RepairIssuesCommand(common).repair(problems.stream());
+            } catch (RuntimeException e) {
+                log.error("Failed to repair batch", e);
+            }
+        }
+    }
+
+    /**
+     * Sibling indexes shift down when lower indexed siblings are repaired, so if a path no longer exists
+     * check for it at each lower index.
+     * @param path problem path from an event
+     * @return the current path of the resource, or null if it is no longer a problem
+     */
+    private String resolveCurrentPath(String path) {
+        try {
+            if (exists(path)) {
+                return path;
+            }
+            Matcher matcher = problemPattern.matcher(path);
+            if (matcher.matches()) {
+                int fix = Integer.parseInt(matcher.group("fix"));
+                for (int index = fix - 1; index > 1; index--) {
+                    String candidate = path.substring(0, matcher.start("fix")) + index
+                            + path.substring(matcher.end("fix"));
+                    if (exists(candidate)) {
+                        return candidate;
+                    }
+                }
+            }
+            log.info("Detected problem {} no longer exists", path);
+        } catch (IOException | FcrepoOperationFailedException e) {
+            log.error("Failed to resolve current path of {}", path, e);
+        }
+        return null;
+    }
+
+    private boolean exists(String path) throws IOException, FcrepoOperationFailedException {
+        try (FcrepoResponse resp = common.getClient().head(URI.create(path)).perform()) {
+            return true;
+        } catch (FcrepoOperationFailedException e) {
+            if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                return false;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2008 The University of North Carolina at Chapel Hill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.unc.lib.fedora.repairsiblings;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoOperationFailedException;
+import org.fcrepo.client.FcrepoResponse;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.ContextHierarchy;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * @author bbpennel
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextHierarchy({
+    @ContextConfiguration("/spring-test/test-fedora-container.xml"),
+})
+public abstract class AbstractRepairIT {
+
+    protected String serverAddress = "http://localhost:48085";
+    protected String brokerUrl = "tcp://localhost:61699";
+
+    protected FcrepoClient fcrepoClient;
+
+    @Before
+    public void setUpClient() throws Exception {
+        fcrepoClient = FcrepoClient.client().build();
+    }
+
+    protected URI createBase(String baseId) throws Exception {
+        URI baseUri = URI.create(serverAddress + "/" + baseId);
+
+        try (FcrepoResponse resp = fcrepoClient.put(baseUri).perform()) {
+            assertEquals(HttpStatus.SC_CREATED, resp.getStatusCode());
+        }
+        return baseUri;
+    }
+
+    protected void generateSiblingNodes(String baseId) throws Exception {
+        List<String> txIds = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            final String txLocation;
+            URI startTxUri = URI.create(serverAddress + "/fcr:tx");
+
+            try (FcrepoResponse resp = fcrepoClient.post(startTxUri).perform()) {
+                assertEquals(HttpStatus.SC_CREATED, resp.getStatusCode());
+                txLocation = resp.getLocation().toString();
+                txIds.add(txLocation);
+            }
+
+            final String objId = baseId + "/path" + i % 3 + "/to" + i % 2 + "/obj" + i;
+            URI objUri = URI.create(txLocation + "/" + objId);
+
+            try (FcrepoResponse resp = fcrepoClient.put(objUri).perform()) {
+                assertEquals(HttpStatus.SC_CREATED, resp.getStatusCode());
+            }
+        }
+
+        for (final String txLocation : txIds) {
+            Runnable commitThread = new Runnable() {
+                @Override
+                public void run() {
+                    URI commitUri = URI.create(txLocation + "/fcr:tx/fcr:commit");
+                    try (FcrepoResponse resp = fcrepoClient.post(commitUri).perform()) {
+                        assertEquals(HttpStatus.SC_NO_CONTENT, resp.getStatusCode());
+                    } catch (IOException | FcrepoOperationFailedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            Thread thread = new Thread(commitThread);
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
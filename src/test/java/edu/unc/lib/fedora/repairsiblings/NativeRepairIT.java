@@ -0,0 +1,91 @@
+/**
+ * Copyright 2008 The University of North Carolina at Chapel Hill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.unc.lib.fedora.repairsiblings;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the native executable built by the native profile against the test fedora
+ *
+ * @author bbpennel
+ */
+public class NativeRepairIT extends AbstractRepairIT {
+
+    private Path nativeExecutable;
+
+    @Before
+    public void setUp() throws Exception {
+        nativeExecutable = Paths.get(System.getProperty("native.executable", "target/fedora-repair-siblings"));
+        assertTrue("Native executable not found at " + nativeExecutable, Files.isExecutable(nativeExecutable));
+    }
+
+    @Test
+    public void locateAndRepair() throws Exception {
+        final String baseId = UUID.randomUUID().toString();
+        URI baseUri = createBase(baseId);
+
+        generateSiblingNodes(baseId);
+
+        // Locate all the problems generated
+        List<String> output = execute("locate", "-b", baseUri.toString());
+        assertTrue(output.size() > 0);
+
+        Path locateResults = Files.createTempFile("locate", ".txt");
+        Files.write(locateResults, output, UTF_8);
+
+        // Repair the problems
+        execute("repair", locateResults.toString(), "-b", baseUri.toString());
+
+        List<String> output2 = execute("locate", "-b", baseUri.toString());
+        assertTrue(output2.isEmpty());
+    }
+
+    private List<String> execute(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(nativeExecutable.toString());
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String stdout = IOUtils.toString(process.getInputStream(), UTF_8);
+        assertEquals("Incorrect exit status", 0, process.waitFor());
+
+        List<String> lines = new ArrayList<>();
+        for (String line : stdout.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+}
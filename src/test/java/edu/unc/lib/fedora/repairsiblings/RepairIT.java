@@ -17,52 +17,43 @@ package edu.unc.lib.fedora.repairsiblings;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.activemq.broker.BrokerRegistry;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.command.ActiveMQTopic;
 import org.apache.http.HttpStatus;
-import org.fcrepo.client.FcrepoClient;
-import org.fcrepo.client.FcrepoOperationFailedException;
 import org.fcrepo.client.FcrepoResponse;
 import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.springframework.test.context.ContextConfiguration;
-import org.springframework.test.context.ContextHierarchy;
-import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import picocli.CommandLine;
 
 /**
  * @author bbpennel
  */
-@RunWith(SpringJUnit4ClassRunner.class)
-@ContextHierarchy({
-    @ContextConfiguration("/spring-test/test-fedora-container.xml"),
-})
-public class RepairIT {
+public class RepairIT extends AbstractRepairIT {
 
-    private String serverAddress = "http://localhost:48085";
-
-    private FcrepoClient fcrepoClient;
+    private static final long WAIT_TIMEOUT = 30000;
 
     final PrintStream originalOut = System.out;
     final ByteArrayOutputStream out = new ByteArrayOutputStream();
 
     @Before
     public void setUp() throws Exception {
-        fcrepoClient = FcrepoClient.client().build();
-
         System.setOut(new PrintStream(out));
         out.reset();
     }
@@ -70,11 +61,7 @@ public class RepairIT {
     @Test
     public void locateAndRepair() throws Exception {
         final String baseId = UUID.randomUUID().toString();
-        URI baseUri = URI.create(serverAddress + "/" + baseId);
-
-        try (FcrepoResponse resp = fcrepoClient.put(baseUri).perform()) {
-            assertEquals(HttpStatus.SC_CREATED, resp.getStatusCode());
-        }
+        URI baseUri = createBase(baseId);
 
         generateSiblingNodes(baseId);
 
@@ -114,14 +101,98 @@ public class RepairIT {
     }
 
     @Test
-    public void dryRun() throws Exception {
+    public void locateManifestAndRepair() throws Exception {
+        final String baseId = UUID.randomUUID().toString();
+        URI baseUri = createBase(baseId);
+
+        generateSiblingNodes(baseId);
+
+        CommandLine command = new CommandLine(new RepairCLI());
+
+        // Locate all the problems generated, recording them to a manifest
+        Path manifest = Files.createTempFile("manifest", ".txt");
+        String[] args = new String[] { "locate",
+                "-b", baseUri.toString(),
+                "-m", manifest.toString() };
+        int result = command.execute(args);
+        assertEquals("Incorrect exit status", 0, result);
+        List<String> manifestLines = Files.readAllLines(manifest);
+        assertTrue(manifestLines.size() > 0);
+        for (String line : manifestLines) {
+            ManifestEntry entry = ManifestEntry.fromLine(line);
+            assertTrue(entry.isVerified());
+            assertFalse(entry.isFixedExists());
+        }
+
+        System.setOut(originalOut);
+
+        // Repair the problems from the manifest
+        String[] args2 = new String[] { "repair", manifest.toString(),
+                "-b", baseUri.toString() };
+        int result2 = command.execute(args2);
+        assertEquals("Incorrect exit status", 0, result2);
+
+        System.setOut(new PrintStream(out));
+        out.reset();
+
+        String[] args3 = new String[] { "locate",
+                "-b", baseUri.toString() };
+        int result3 = command.execute(args3);
+        assertEquals("Incorrect exit status", 0, result3);
+        System.setOut(originalOut);
+
+        assertTrue(out.toString().trim().isEmpty());
+    }
+
+    @Test
+    public void locateManifestAndRepairChangedProblem() throws Exception {
         final String baseId = UUID.randomUUID().toString();
-        URI baseUri = URI.create(serverAddress + "/" + baseId);
+        URI baseUri = createBase(baseId);
 
-        try (FcrepoResponse resp = fcrepoClient.put(baseUri).perform()) {
+        generateSiblingNodes(baseId);
+
+        CommandLine command = new CommandLine(new RepairCLI());
+
+        Path manifest = Files.createTempFile("manifest", ".txt");
+        String[] args = new String[] { "locate",
+                "-b", baseUri.toString(),
+                "-m", manifest.toString() };
+        int result = command.execute(args);
+        assertEquals("Incorrect exit status", 0, result);
+        List<String> manifestLines = Files.readAllLines(manifest);
+        assertTrue(manifestLines.size() > 0);
+
+        // Change one of the problem nodes after the manifest was created
+        String changedPath = ManifestEntry.fromLine(manifestLines.get(0)).getPath();
+        Matcher matcher = Pattern.compile("(?<prob>.*%5B(?<fix>\\d+)%5D)/.*").matcher(changedPath);
+        assertTrue(matcher.matches());
+        String changedProb = matcher.group("prob");
+        try (FcrepoResponse resp = fcrepoClient.put(URI.create(changedProb + "/drift")).perform()) {
             assertEquals(HttpStatus.SC_CREATED, resp.getStatusCode());
         }
 
+        out.reset();
+
+        String[] args2 = new String[] { "repair", manifest.toString(),
+                "-b", baseUri.toString() };
+        int result2 = command.execute(args2);
+        assertEquals("Incorrect exit status", 0, result2);
+        System.setOut(originalOut);
+
+        // The changed problem node is reported and left in place
+        assertTrue(out.toString().contains(
+                "Skipping " + changedProb + ", it has changed since the manifest was created"));
+        assertTrue(exists(URI.create(changedProb)));
+        assertTrue(exists(URI.create(changedPath)));
+        String renamedProb = changedProb.replaceFirst("%5B(\\d+)%5D$", "_$1");
+        assertFalse(exists(URI.create(renamedProb)));
+    }
+
+    @Test
+    public void dryRun() throws Exception {
+        final String baseId = UUID.randomUUID().toString();
+        URI baseUri = createBase(baseId);
+
         generateSiblingNodes(baseId);
 
         CommandLine command = new CommandLine(new RepairCLI());
@@ -163,51 +234,76 @@ public class RepairIT {
         assertTrue(output.containsAll(output2));
     }
 
-    private void generateSiblingNodes(String baseId) throws Exception {
-        List<String> txIds = new ArrayList<>();
-        List<Thread> threads = new ArrayList<>();
+    @Test
+    public void watchAndRepair() throws Exception {
+        final String baseId = UUID.randomUUID().toString();
+        URI baseUri = createBase(baseId);
+
+        // Watch for events in the background while problems are generated
+        CommandLine watchCommand = new CommandLine(new RepairCLI());
+        WatchEventsCommand watcher = watchCommand.getSubcommands().get("watch").getCommand();
+        final int[] watchResult = new int[1];
+        Thread watchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String[] args = new String[] { "watch",
+                        "-b", baseUri.toString(),
+                        "--broker-url", brokerUrl,
+                        "-w", "1000",
+                        "--repair" };
+                watchResult[0] = watchCommand.execute(args);
+            }
+        });
+        watchThread.start();
+        awaitWatcherSubscribed();
+
+        generateSiblingNodes(baseId);
 
+        // Wait for every generated object to be repaired to its de-indexed path
         for (int i = 0; i < 10; i++) {
-            final String txLocation;
-            URI startTxUri = URI.create(serverAddress + "/fcr:tx");
+            URI fixedUri = URI.create(baseUri + "/path" + i % 3 + "/to" + i % 2 + "/obj" + i);
+            awaitExists(fixedUri);
+        }
 
-            try (FcrepoResponse resp = fcrepoClient.post(startTxUri).perform()) {
-                assertEquals(HttpStatus.SC_CREATED, resp.getStatusCode());
-                txLocation = resp.getLocation().toString();
-                txIds.add(txLocation);
-            }
+        watcher.stop();
+        watchThread.join(WAIT_TIMEOUT);
+        assertFalse("Watcher did not stop", watchThread.isAlive());
+        assertEquals("Incorrect exit status", 0, watchResult[0]);
+        List<String> output = Arrays.asList(out.toString().trim().split("\n"));
+        assertTrue(output.stream().anyMatch(line -> line.contains("%5B")));
 
-            final String objId = baseId + "/path" + i % 3 + "/to" + i % 2 + "/obj" + i;
-            URI objUri = URI.create(txLocation + "/" + objId);
+        out.reset();
 
-            try (FcrepoResponse resp = fcrepoClient.put(objUri).perform()) {
-                assertEquals(HttpStatus.SC_CREATED, resp.getStatusCode());
-            }
-        }
+        String[] args = new String[] { "locate",
+                "-b", baseUri.toString() };
+        int result = new CommandLine(new RepairCLI()).execute(args);
+        assertEquals("Incorrect exit status", 0, result);
+        System.setOut(originalOut);
 
-        for (final String txLocation : txIds) {
-            Runnable commitThread = new Runnable() {
-                @Override
-                public void run() {
-                    URI commitUri = URI.create(txLocation + "/fcr:tx/fcr:commit");
-                    try (FcrepoResponse resp = fcrepoClient.post(commitUri).perform()) {
-                        assertEquals(HttpStatus.SC_NO_CONTENT, resp.getStatusCode());
-                    } catch (IOException | FcrepoOperationFailedException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            };
-            Thread thread = new Thread(commitThread);
-            threads.add(thread);
-        }
+        assertTrue(out.toString().trim().isEmpty());
+    }
 
-        for (Thread thread : threads) {
-            thread.start();
+    private boolean exists(URI uri) throws Exception {
+        try (FcrepoResponse resp = fcrepoClient.head(uri).perform()) {
+            return resp.getStatusCode() == HttpStatus.SC_OK;
         }
+    }
 
-        for (Thread thread : threads) {
-            thread.join();
+    private void awaitWatcherSubscribed() throws Exception {
+        BrokerService broker = BrokerRegistry.getInstance().lookup("localhost");
+        Destination topic = broker.getDestination(new ActiveMQTopic("fedora"));
+        long end = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (topic.getConsumers().isEmpty()) {
+            assertTrue("Watcher did not subscribe to topic", System.currentTimeMillis() < end);
+            Thread.sleep(50);
         }
     }
 
+    private void awaitExists(URI uri) throws Exception {
+        long end = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!exists(uri)) {
+            assertTrue("Timed out waiting for " + uri, System.currentTimeMillis() < end);
+            Thread.sleep(200);
+        }
+    }
 }